@@ -0,0 +1,25 @@
+package com.dataaggregator.dataaggregator.config;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+
+/**
+ * This class provides the configuration for the region partitioned storage.
+ *
+ * It uses the @Value annotation to inject the size of the thread pool used to
+ * run the per-region queries of a national (scatter-gather) query in parallel.
+ */
+@Configuration
+public class PartitionConfig {
+
+	@Value("${partition.query-parallelism}")
+	public int queryParallelism;
+
+	// Creating the pool shared by all the scatter-gather queries
+	@Bean(destroyMethod = "shutdown")
+	public PartitionQueryExecutor partitionQueryExecutor() {
+		return new PartitionQueryExecutor(queryParallelism);
+	}
+
+}
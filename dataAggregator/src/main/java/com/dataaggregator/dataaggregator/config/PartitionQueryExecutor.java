@@ -0,0 +1,31 @@
+package com.dataaggregator.dataaggregator.config;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * The thread pool running the per-region queries of the national
+ * (scatter-gather) queries.
+ *
+ * It wraps the pool instead of exposing it as an Executor bean, which would
+ * replace the application task executor auto-configured by Spring Boot.
+ */
+public class PartitionQueryExecutor {
+
+	private final ExecutorService pool;
+
+	public PartitionQueryExecutor(int parallelism) {
+		this.pool = Executors.newFixedThreadPool(parallelism);
+	}
+
+	public <T> Future<T> submit(Callable<T> task) {
+		return pool.submit(task);
+	}
+
+	public void shutdown() {
+		pool.shutdown();
+	}
+
+}
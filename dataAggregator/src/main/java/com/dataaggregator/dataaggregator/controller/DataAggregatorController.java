@@ -8,7 +8,9 @@ import org.springframework.web.bind.annotation.RequestMapping;
 import org.springframework.web.bind.annotation.RestController;
 
 import com.dataaggregator.dataaggregator.entity.ComuneDose;
+import com.dataaggregator.dataaggregator.entity.DoseMetric;
 import com.dataaggregator.dataaggregator.service.DataAggregatorService;
+import com.dataaggregator.dataaggregator.service.QueryCoalescer;
 
 import lombok.AllArgsConstructor;
 
@@ -18,6 +20,9 @@ import lombok.AllArgsConstructor;
  * Italy. It is annotated with @RestController to indicate that it is a RESTful
  * web service, and @RequestMapping with the "api/comunes" path to specify the
  * base URI for all HTTP requests handled by this controller.
+ * 
+ * Every request goes through a {@link QueryCoalescer}, so that concurrent
+ * identical requests share a single query to the database.
  */
 @RestController
 @RequestMapping(path = "api/comunes")
@@ -27,6 +32,9 @@ public class DataAggregatorController {
 	@Autowired
 	DataAggregatorService service;
 
+	@Autowired
+	QueryCoalescer coalescer;
+
 	/**
 	 * This method is used to handle the HTTP GET request for retrieving the total
 	 * number of individuals who have received a single dose of the COVID-19
@@ -38,7 +46,7 @@ public class DataAggregatorController {
 	@RequestMapping(value = "/getTotalNumberOfOneDose")
 	public long getTotalNumberOfOneDose() {
 
-		return service.getTotalNumberOfOneDose();
+		return coalescer.execute("getTotalNumberOfOneDose", () -> service.getTotalNumberOfOneDose());
 	}
 
 	/**
@@ -51,7 +59,7 @@ public class DataAggregatorController {
 	@RequestMapping(value = "/getTotalNumberOfTwoDoses")
 	public long getTotalNumberOfTwoDoses() {
 
-		return service.getTotalNumberOfTwoDoses();
+		return coalescer.execute("getTotalNumberOfTwoDoses", () -> service.getTotalNumberOfTwoDoses());
 	}
 
 	/**
@@ -68,7 +76,8 @@ public class DataAggregatorController {
 	@RequestMapping(value = "/getTotalNumberOfOneDoseFromProvince/{siglaProvince}")
 	public long getTotalNumberOfOneDoseFromProvince(@PathVariable("siglaProvince") String siglaProvince) {
 
-		return service.getTotalNumberOfOneDoseFromProvince(siglaProvince);
+		return coalescer.execute("getTotalNumberOfOneDoseFromProvince:" + siglaProvince,
+				() -> service.getTotalNumberOfOneDoseFromProvince(siglaProvince));
 	}
 
 	/**
@@ -85,7 +94,8 @@ public class DataAggregatorController {
 	@RequestMapping(value = "/getTotalNumberOfTwoDosesFromProvince/{siglaProvince}")
 	public long getTotalNumberOfTwoDosesFromProvince(@PathVariable("siglaProvince") String siglaProvince) {
 
-		return service.getTotalNumberOfTwoDosesFromProvince(siglaProvince);
+		return coalescer.execute("getTotalNumberOfTwoDosesFromProvince:" + siglaProvince,
+				() -> service.getTotalNumberOfTwoDosesFromProvince(siglaProvince));
 	}
 
 	/**
@@ -100,7 +110,7 @@ public class DataAggregatorController {
 	@RequestMapping(value = "/getComunesOrderedByTwoDoses")
 	public List<ComuneDose> getComunesOrderedByTwoDoses() {
 
-		return service.getComunesOrderedByTwoDoses();
+		return coalescer.execute("getComunesOrderedByTwoDoses", () -> service.getComunesOrderedByTwoDoses());
 	}
 
 	/**
@@ -120,7 +130,8 @@ public class DataAggregatorController {
 	public List<ComuneDose> getComunesOrderedByTwoDosesFromProvince(
 			@PathVariable("siglaProvince") String siglaProvince) {
 
-		return service.getComunesOrderedByTwoDosesFromProvince(siglaProvince);
+		return coalescer.execute("getComunesOrderedByTwoDosesFromProvince:" + siglaProvince,
+				() -> service.getComunesOrderedByTwoDosesFromProvince(siglaProvince));
 	}
 
 	/**
@@ -135,7 +146,7 @@ public class DataAggregatorController {
 	@RequestMapping(value = "/getComuneWithMoreOneDose")
 	public ComuneDose getComuneWithMoreOneDose() {
 
-		return service.getComuneWithMoreOneDose();
+		return coalescer.execute("getComuneWithMoreOneDose", () -> service.getComuneWithMoreOneDose());
 	}
 
 	/**
@@ -150,7 +161,7 @@ public class DataAggregatorController {
 	@RequestMapping(value = "/getComuneWithMoreTwoDoses")
 	public ComuneDose getComuneWithMoreTwoDoses() {
 
-		return service.getComuneWithMoreTwoDoses();
+		return coalescer.execute("getComuneWithMoreTwoDoses", () -> service.getComuneWithMoreTwoDoses());
 	}
 
 	/**
@@ -165,7 +176,7 @@ public class DataAggregatorController {
 	@RequestMapping(value = "/getComuneWithLessOneDose")
 	public ComuneDose getComuneWithLessOneDose() {
 
-		return service.getComuneWithLessOneDose();
+		return coalescer.execute("getComuneWithLessOneDose", () -> service.getComuneWithLessOneDose());
 	}
 
 	/**
@@ -183,7 +194,8 @@ public class DataAggregatorController {
 	@RequestMapping(value = "/getComuneWithMoreOneDoseFromProvince/{siglaProvince}")
 	public ComuneDose getComuneWithMoreOneDoseFromProvince(@PathVariable("siglaProvince") String siglaProvince) {
 
-		return service.getComuneWithMoreOneDoseFromProvince(siglaProvince);
+		return coalescer.execute("getComuneWithMoreOneDoseFromProvince:" + siglaProvince,
+				() -> service.getComuneWithMoreOneDoseFromProvince(siglaProvince));
 	}
 
 	/**
@@ -201,7 +213,111 @@ public class DataAggregatorController {
 	@RequestMapping(value = "/getComuneWithMoreTwoDosesFromProvince/{siglaProvince}")
 	public ComuneDose getComuneWithMoreTwoDosesFromProvince(@PathVariable("siglaProvince") String siglaProvince) {
 
-		return service.getComuneWithMoreTwoDosesFromProvince(siglaProvince);
+		return coalescer.execute("getComuneWithMoreTwoDosesFromProvince:" + siglaProvince,
+				() -> service.getComuneWithMoreTwoDosesFromProvince(siglaProvince));
+	}
+
+	/**
+	 * This method is used to handle the HTTP GET request for retrieving a list of
+	 * all the comunes in Italy, sorted by the given metric in descending order.
+	 * 
+	 * @param metric The name of the metric to sort by: dose1, dose2, booster,
+	 *               totalDoses, dose2Coverage or boosterCoverage.
+	 * @return A list of ComuneDose objects representing each comune in Italy,
+	 *         sorted by the given metric in descending order.
+	 */
+	@RequestMapping(value = "/getComunesOrderedBy/{metric}")
+	public List<ComuneDose> getComunesOrderedBy(@PathVariable("metric") String metric) {
+
+		return coalescer.execute("getComunesOrderedBy:" + metric,
+				() -> service.getComunesOrderedBy(DoseMetric.fromField(metric)));
+	}
+
+	/**
+	 * This method is used to handle the HTTP GET request for retrieving a list of
+	 * all the comunes from a specific province in Italy, sorted by the given
+	 * metric in descending order.
+	 * 
+	 * @param metric        The name of the metric to sort by.
+	 * @param siglaProvince The province code (sigla) for which the list of comunes
+	 *                      is to be retrieved and sorted.
+	 * @return A list of ComuneDose objects representing each comune from the
+	 *         specified province in Italy, sorted by the given metric in
+	 *         descending order.
+	 */
+	@RequestMapping(value = "/getComunesOrderedByFromProvince/{metric}/{siglaProvince}")
+	public List<ComuneDose> getComunesOrderedByFromProvince(@PathVariable("metric") String metric,
+			@PathVariable("siglaProvince") String siglaProvince) {
+
+		return coalescer.execute("getComunesOrderedByFromProvince:" + metric + ":" + siglaProvince,
+				() -> service.getComunesOrderedByFromProvince(DoseMetric.fromField(metric), siglaProvince));
+	}
+
+	/**
+	 * This method is used to handle the HTTP GET request for retrieving the comune
+	 * in Italy with the highest value of the given metric.
+	 * 
+	 * @param metric The name of the metric to compare by.
+	 * @return A ComuneDose object representing the comune in Italy with the
+	 *         highest value of the given metric.
+	 */
+	@RequestMapping(value = "/getComuneWithMore/{metric}")
+	public ComuneDose getComuneWithMore(@PathVariable("metric") String metric) {
+
+		return coalescer.execute("getComuneWithMore:" + metric,
+				() -> service.getComuneWithMore(DoseMetric.fromField(metric)));
+	}
+
+	/**
+	 * This method is used to handle the HTTP GET request for retrieving the comune
+	 * in Italy with the lowest value of the given metric.
+	 * 
+	 * @param metric The name of the metric to compare by.
+	 * @return A ComuneDose object representing the comune in Italy with the lowest
+	 *         value of the given metric.
+	 */
+	@RequestMapping(value = "/getComuneWithLess/{metric}")
+	public ComuneDose getComuneWithLess(@PathVariable("metric") String metric) {
+
+		return coalescer.execute("getComuneWithLess:" + metric,
+				() -> service.getComuneWithLess(DoseMetric.fromField(metric)));
+	}
+
+	/**
+	 * This method is used to handle the HTTP GET request for retrieving the comune
+	 * from a specific province in Italy with the highest value of the given
+	 * metric.
+	 * 
+	 * @param metric        The name of the metric to compare by.
+	 * @param siglaProvince The province code (sigla) for which the comune is to be
+	 *                      retrieved.
+	 * @return A ComuneDose object representing the comune from the specified
+	 *         province in Italy with the highest value of the given metric.
+	 */
+	@RequestMapping(value = "/getComuneWithMoreFromProvince/{metric}/{siglaProvince}")
+	public ComuneDose getComuneWithMoreFromProvince(@PathVariable("metric") String metric,
+			@PathVariable("siglaProvince") String siglaProvince) {
+
+		return coalescer.execute("getComuneWithMoreFromProvince:" + metric + ":" + siglaProvince,
+				() -> service.getComuneWithMoreFromProvince(DoseMetric.fromField(metric), siglaProvince));
+	}
+
+	/**
+	 * This method is used to handle the HTTP GET request for retrieving the comune
+	 * from a specific province in Italy with the lowest value of the given metric.
+	 * 
+	 * @param metric        The name of the metric to compare by.
+	 * @param siglaProvince The province code (sigla) for which the comune is to be
+	 *                      retrieved.
+	 * @return A ComuneDose object representing the comune from the specified
+	 *         province in Italy with the lowest value of the given metric.
+	 */
+	@RequestMapping(value = "/getComuneWithLessFromProvince/{metric}/{siglaProvince}")
+	public ComuneDose getComuneWithLessFromProvince(@PathVariable("metric") String metric,
+			@PathVariable("siglaProvince") String siglaProvince) {
+
+		return coalescer.execute("getComuneWithLessFromProvince:" + metric + ":" + siglaProvince,
+				() -> service.getComuneWithLessFromProvince(DoseMetric.fromField(metric), siglaProvince));
 	}
 
 }
@@ -0,0 +1,54 @@
+package com.dataaggregator.dataaggregator.controller;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RequestMethod;
+import org.springframework.web.bind.annotation.RequestParam;
+import org.springframework.web.bind.annotation.RestController;
+
+import com.dataaggregator.dataaggregator.service.ReconcileReport;
+import com.dataaggregator.dataaggregator.service.ReconcileService;
+
+import lombok.AllArgsConstructor;
+
+/**
+ * This class represents the administration web service used to run the
+ * reconcile job over the comuneDose region collections. It is annotated
+ * with @RequestMapping with the "api/admin/reconcile" path to specify the base
+ * URI for all HTTP requests handled by this controller.
+ */
+@RestController
+@RequestMapping(path = "api/admin/reconcile")
+@AllArgsConstructor
+public class ReconcileController {
+
+	@Autowired
+	ReconcileService service;
+
+	/**
+	 * This method is used to handle the HTTP POST request for starting a reconcile
+	 * job in the background.
+	 * 
+	 * @param repair Whether the job should repair the inconsistent documents it
+	 *               can repair, or only report them. Defaults to false.
+	 * @return The report of the started job.
+	 */
+	@RequestMapping(method = RequestMethod.POST)
+	public ReconcileReport start(@RequestParam(value = "repair", defaultValue = "false") boolean repair) {
+
+		return service.start(repair);
+	}
+
+	/**
+	 * This method is used to handle the HTTP GET request for retrieving the
+	 * progress of the running reconcile job, or the outcome of the last one.
+	 * 
+	 * @return The report of the last started job.
+	 */
+	@RequestMapping(method = RequestMethod.GET)
+	public ReconcileReport getLastReport() {
+
+		return service.getLastReport();
+	}
+
+}
@@ -15,7 +15,13 @@ import lombok.Setter;
  * 
  * and the number of administered doses for the first, second, booster, and
  * recall doses.
- * 
+ *
+ * It also stores the metrics derived from the doses (total doses, second dose
+ *
+ * coverage and booster coverage), computed once when the record is ingested so
+ *
+ * that the rankings on them can be served by an index.
+ *
  * Overrides the toString method to return
  * 
  * a string representation of the object's fields.
@@ -42,12 +48,26 @@ public class ComuneDose {
 	private int dose2;
 	private int booster;
 	private int richiamo;
+	private int totalDoses;
+	private Double dose2Coverage;
+	private Double boosterCoverage;
+
+	/**
+	 * Computes the derived metrics from the administered doses. The coverage
+	 * ratios are null, and therefore not stored, when their denominator is 0.
+	 */
+	public void computeDerivedMetrics() {
+		totalDoses = dose1 + dose2 + booster + richiamo;
+		dose2Coverage = dose1 == 0 ? null : (double) dose2 / dose1;
+		boosterCoverage = dose2 == 0 ? null : (double) booster / dose2;
+	}
 
 	@Override
 	public String toString() {
 		return "{" + "codice='" + codice + '\'' + ", comune='" + comune + '\'' + ", provincia='" + provincia + '\''
 				+ ", sigla='" + sigla + '\'' + ", dose1='" + dose1 + '\'' + ", dose2='" + dose2 + '\'' + ", booster='"
-				+ booster + '\'' + ", richiamo='" + richiamo + '\'' + '}';
+				+ booster + '\'' + ", richiamo='" + richiamo + '\'' + ", totalDoses='" + totalDoses + '\''
+				+ ", dose2Coverage='" + dose2Coverage + '\'' + ", boosterCoverage='" + boosterCoverage + '\'' + '}';
 	}
 
 }
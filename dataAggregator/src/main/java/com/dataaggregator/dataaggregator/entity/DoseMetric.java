@@ -0,0 +1,74 @@
+package com.dataaggregator.dataaggregator.entity;
+
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.function.ToDoubleFunction;
+
+import com.dataaggregator.dataaggregator.exception.BadRequestException;
+
+/**
+ * The ComuneDose fields the comunes can be ranked by. Each metric is stored on
+ * the document and indexed in every region collection, so sorting on it never
+ * requires computing it at query time.
+ *
+ * The coverage metrics are absent from the comunes with no doses to cover, so
+ * the queries on a metric only match the comunes where its field exists.
+ */
+public enum DoseMetric {
+
+	DOSE1("dose1", false, ComuneDose::getDose1),
+	DOSE2("dose2", false, ComuneDose::getDose2),
+	BOOSTER("booster", false, ComuneDose::getBooster),
+	TOTAL_DOSES("totalDoses", false, ComuneDose::getTotalDoses),
+	DOSE2_COVERAGE("dose2Coverage", true, ComuneDose::getDose2Coverage),
+	BOOSTER_COVERAGE("boosterCoverage", true, ComuneDose::getBoosterCoverage);
+
+	private final String field;
+
+	private final boolean optional;
+
+	private final Comparator<ComuneDose> ascending;
+
+	DoseMetric(String field, boolean optional, ToDoubleFunction<ComuneDose> value) {
+		this.field = field;
+		this.optional = optional;
+		this.ascending = Comparator.comparingDouble(value);
+	}
+
+	/**
+	 * @return the name of the document field holding the metric.
+	 */
+	public String getField() {
+		return field;
+	}
+
+	/**
+	 * @return true if the metric is absent from the comunes where it is undefined.
+	 */
+	public boolean isOptional() {
+		return optional;
+	}
+
+	/**
+	 * @return a comparator ordering the comunes by the metric, in ascending order.
+	 *         The metric must be defined on the compared comunes.
+	 */
+	public Comparator<ComuneDose> ascending() {
+		return ascending;
+	}
+
+	/**
+	 * Resolves a metric from the name of its document field.
+	 *
+	 * @param field the name of the field, e.g. "dose2Coverage".
+	 * @return the metric stored in that field.
+	 *
+	 * @throws BadRequestException if no metric is stored in that field.
+	 */
+	public static DoseMetric fromField(String field) {
+
+		return Arrays.stream(values()).filter(metric -> metric.field.equals(field)).findFirst()
+				.orElseThrow(() -> new BadRequestException("Unknown metric " + field + "."));
+	}
+
+}
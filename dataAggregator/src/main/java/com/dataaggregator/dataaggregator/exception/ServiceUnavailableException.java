@@ -0,0 +1,20 @@
+package com.dataaggregator.dataaggregator.exception;
+
+import org.springframework.http.HttpStatus;
+import org.springframework.web.bind.annotation.ResponseStatus;
+
+/**
+ * This exception class is used to represent a Service Unavailable error (HTTP
+ * 503) in the application.
+ * 
+ * It extends the RuntimeException class and sets the HTTP status code to
+ * SERVICE_UNAVAILABLE.
+ */
+@SuppressWarnings("serial")
+@ResponseStatus(HttpStatus.SERVICE_UNAVAILABLE)
+public class ServiceUnavailableException extends RuntimeException {
+
+	public ServiceUnavailableException(String msg) {
+		super(msg);
+	}
+}
\ No newline at end of file
@@ -1,6 +1,14 @@
 package com.dataaggregator.dataaggregator.service;
 
+import java.util.ArrayList;
+import java.util.Comparator;
 import java.util.List;
+import java.util.Objects;
+import java.util.PriorityQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.function.Function;
+import java.util.stream.Collectors;
 
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.data.domain.Sort;
@@ -11,89 +19,87 @@ import org.springframework.data.mongodb.core.query.Criteria;
 import org.springframework.data.mongodb.core.query.Query;
 import org.springframework.stereotype.Service;
 
+import com.dataaggregator.dataaggregator.config.PartitionQueryExecutor;
 import com.dataaggregator.dataaggregator.entity.ComuneDose;
+import com.dataaggregator.dataaggregator.entity.DoseMetric;
 import com.dataaggregator.dataaggregator.exception.BadRequestException;
-import com.dataaggregator.dataaggregator.repository.DataAggregatorRepository;
 import com.mongodb.BasicDBObject;
 
 
 /**
  * This class represents a service for aggregating data about COVID-19 vaccine
- * doses administered in Lombardia.
+ * doses administered in Italy.
+ * 
+ * The data is partitioned by region (see {@link RegionPartitioner}): the
+ * province queries only touch the collection of their region, while the
+ * national queries run on every region collection in parallel and merge the
+ * partial results.
  */
 @Service
 public class DataAggregatorService {
 
 	@Autowired
-	private DataAggregatorRepository repository;
+	private MongoTemplate mongoTemplate;
 
 	@Autowired
-	private MongoTemplate mongoTemplate;
+	private RegionPartitioner partitioner;
+
+	@Autowired
+	private PartitionQueryExecutor partitionQueryExecutor;
 
 	/**
-	 * This method is used to add a new ComuneDose object to the database.
+	 * This method is used to add a new ComuneDose object to the collection of
+	 * its region, after normalizing its sigla to upper case and computing its
+	 * derived metrics.
 	 * 
 	 * @param comune A ComuneDose object representing the comune (municipality) in
 	 *               Italy to be added to the database.
 	 * @throws BadRequestException if a comune with the specified ID already exists
-	 *                             in the database.
+	 *                             in the database or its province is unknown.
 	 */
 	public void addComuneDose(ComuneDose comune) {
 
-		boolean existsById = repository.existsById(comune.getCodice());
+		comune.setSigla(RegionPartitioner.normalize(comune.getSigla()));
+		String collection = partitioner.collectionFor(comune.getSigla());
+		partitioner.ensureIndexes(collection);
+
+		boolean existsById = mongoTemplate.exists(new Query(Criteria.where("_id").is(comune.getCodice())),
+				collection);
 		if (existsById) {
 			throw new BadRequestException("Comune with ID " + comune.getCodice() + " already exists.");
 		}
-		repository.insert(comune);
+		comune.computeDerivedMetrics();
+		mongoTemplate.insert(comune, collection);
 	}
 
 	/**
 	 * This method is used to retrieve the total number of first doses of COVID-19
-	 * vaccine administered in Lombardia.
+	 * vaccine administered in Italy.
 	 * 
 	 * @return a long value representing the total number of first doses
-	 *         administered in Lombardia.
+	 *         administered in Italy.
 	 * 
 	 * @throws BadRequestException if the aggregation operation fails or the result
 	 *                             is null.
 	 */
 	public long getTotalNumberOfOneDose() {
 
-		Aggregation aggregation = Aggregation.newAggregation(Aggregation.group().sum("dose1").as("totalDose1"));
-
-		AggregationResults<BasicDBObject> results = mongoTemplate.aggregate(aggregation, "comuneDose",
-				BasicDBObject.class);
-
-		BasicDBObject output = results.getUniqueMappedResult();
-		if (output == null) {
-			throw new BadRequestException("Bad Request");
-		}
-
-		return output.getLong("totalDose1");
+		return sumPartials(scatter(collection -> sum(collection, null, "dose1")));
 	}
 
 	/**
 	 * This method is used to retrieve the total number of second doses of COVID-19
-	 * vaccine administered in Lombardia.
+	 * vaccine administered in Italy.
 	 * 
 	 * @return a long value representing the total number of second doses
-	 *         administered in Lombardia.
+	 *         administered in Italy.
 	 * 
 	 * @throws BadRequestException if the aggregation operation fails or the result
 	 *                             is null.
 	 */
 	public long getTotalNumberOfTwoDoses() {
 
-		Aggregation aggregation = Aggregation.newAggregation(Aggregation.group().sum("dose2").as("totalDose2"));
-
-		AggregationResults<BasicDBObject> results = mongoTemplate.aggregate(aggregation, "comuneDose",
-				BasicDBObject.class);
-		BasicDBObject output = results.getUniqueMappedResult();
-		if (output == null) {
-			throw new BadRequestException("Bad Request");
-		}
-
-		return output.getLong("totalDose2");
+		return sumPartials(scatter(collection -> sum(collection, null, "dose2")));
 	}
 
 	/**
@@ -112,19 +118,13 @@ public class DataAggregatorService {
 	 */
 	public long getTotalNumberOfOneDoseFromProvince(String province) {
 
-		Aggregation aggregation = Aggregation.newAggregation(Aggregation.match(Criteria.where("sigla").is(province)),
-				Aggregation.group().sum("dose1").as("totalDose1"));
+		Long total = sum(partitioner.collectionFor(province), inProvince(province), "dose1");
 
-		AggregationResults<BasicDBObject> results = mongoTemplate.aggregate(aggregation, "comuneDose",
-				BasicDBObject.class);
-		BasicDBObject output = results.getUniqueMappedResult();
-
-		if (output == null) {
+		if (total == null) {
 			throw new BadRequestException("Bad Request");
 		}
 
-		return output.getLong("totalDose1");
-
+		return total;
 	}
 
 	/**
@@ -144,18 +144,13 @@ public class DataAggregatorService {
 	 */
 	public long getTotalNumberOfTwoDosesFromProvince(String province) {
 
-		Aggregation aggregation = Aggregation.newAggregation(Aggregation.match(Criteria.where("sigla").is(province)),
-				Aggregation.group().sum("dose2").as("totalDose2"));
+		Long total = sum(partitioner.collectionFor(province), inProvince(province), "dose2");
 
-		AggregationResults<BasicDBObject> results = mongoTemplate.aggregate(aggregation, "comuneDose",
-				BasicDBObject.class);
-		BasicDBObject output = results.getUniqueMappedResult();
-
-		if (output == null) {
+		if (total == null) {
 			throw new BadRequestException("Bad Request");
 		}
 
-		return output.getLong("totalDose2");
+		return total;
 	}
 
 	/**
@@ -168,11 +163,7 @@ public class DataAggregatorService {
 	 */
 	public List<ComuneDose> getComunesOrderedByTwoDoses() {
 
-		Query query = new Query();
-
-		query.with(Sort.by("dose2").descending());
-
-		return mongoTemplate.find(query, ComuneDose.class);
+		return getComunesOrderedBy(DoseMetric.DOSE2);
 	}
 
 	/**
@@ -186,11 +177,7 @@ public class DataAggregatorService {
 	 */
 	public List<ComuneDose> getComunesOrderedByTwoDosesFromProvince(String province) {
 
-		Query query = new Query(Criteria.where("sigla").is(province));
-
-		query.with(Sort.by("dose2").descending());
-
-		return mongoTemplate.find(query, ComuneDose.class);
+		return getComunesOrderedByFromProvince(DoseMetric.DOSE2, province);
 	}
 
 	/**
@@ -200,11 +187,7 @@ public class DataAggregatorService {
 	 */
 	public ComuneDose getComuneWithMoreOneDose() {
 
-		Query query = new Query();
-		query.limit(1);
-		query.with(Sort.by("dose1").descending());
-
-		return mongoTemplate.findOne(query, ComuneDose.class);
+		return getComuneWithMore(DoseMetric.DOSE1);
 	}
 
 	/**
@@ -214,11 +197,7 @@ public class DataAggregatorService {
 	 */
 	public ComuneDose getComuneWithMoreTwoDoses() {
 
-		Query query = new Query();
-		query.limit(1);
-		query.with(Sort.by("dose2").descending());
-
-		return mongoTemplate.findOne(query, ComuneDose.class);
+		return getComuneWithMore(DoseMetric.DOSE2);
 	}
 
 	/**
@@ -230,11 +209,7 @@ public class DataAggregatorService {
 	 */
 	public ComuneDose getComuneWithLessOneDose() {
 
-		Query query = new Query();
-		query.limit(1);
-		query.with(Sort.by("dose1").ascending());
-
-		return mongoTemplate.findOne(query, ComuneDose.class);
+		return getComuneWithLess(DoseMetric.DOSE1);
 	}
 
 	/**
@@ -246,11 +221,7 @@ public class DataAggregatorService {
 	 */
 	public ComuneDose getComuneWithLessTwoDoses() {
 
-		Query query = new Query();
-		query.limit(1);
-		query.with(Sort.by("dose2").ascending());
-
-		return mongoTemplate.findOne(query, ComuneDose.class);
+		return getComuneWithLess(DoseMetric.DOSE2);
 	}
 
 	/**
@@ -265,11 +236,7 @@ public class DataAggregatorService {
 	 */
 	public ComuneDose getComuneWithMoreOneDoseFromProvince(String province) {
 
-		Query query = new Query(Criteria.where("sigla").is(province));
-		query.limit(1);
-		query.with(Sort.by("dose1").descending());
-
-		return mongoTemplate.findOne(query, ComuneDose.class);
+		return getComuneWithMoreFromProvince(DoseMetric.DOSE1, province);
 	}
 
 	/**
@@ -284,11 +251,223 @@ public class DataAggregatorService {
 	 */
 	public ComuneDose getComuneWithMoreTwoDosesFromProvince(String province) {
 
-		Query query = new Query(Criteria.where("sigla").is(province));
+		return getComuneWithMoreFromProvince(DoseMetric.DOSE2, province);
+	}
+
+	/**
+	 * This method returns a list of {@link ComuneDose} objects sorted by the given
+	 * metric, in descending order. Every region is sorted by MongoDB on the metric
+	 * index and the sorted lists are then merged. The comunes for which the metric
+	 * is undefined (a coverage with no doses to cover) are left out, as in all the
+	 * metric queries below.
+	 * 
+	 * @param metric the metric to sort the comunes by.
+	 * @return a list of {@link ComuneDose} objects, sorted by the given metric.
+	 */
+	public List<ComuneDose> getComunesOrderedBy(DoseMetric metric) {
+
+		Query query = new Query(Criteria.where(metric.getField()).exists(true));
+
+		query.with(Sort.by(metric.getField()).descending());
+
+		return mergeSorted(scatter(collection -> mongoTemplate.find(query, ComuneDose.class, collection)),
+				metric.ascending().reversed());
+	}
+
+	/**
+	 * This method returns a list of {@link ComuneDose} objects from a specific
+	 * province, sorted by the given metric, in descending order.
+	 * 
+	 * @param metric   the metric to sort the comunes by.
+	 * @param province the province for which to retrieve the {@link ComuneDose}
+	 *                 objects.
+	 * @return a list of {@link ComuneDose} objects from the specified province,
+	 *         sorted by the given metric.
+	 */
+	public List<ComuneDose> getComunesOrderedByFromProvince(DoseMetric metric, String province) {
+
+		Query query = new Query(inProvince(province).and(metric.getField()).exists(true));
+
+		query.with(Sort.by(metric.getField()).descending());
+
+		return mongoTemplate.find(query, ComuneDose.class, partitioner.collectionFor(province));
+	}
+
+	/**
+	 * Retrieves the comune with the biggest value of the given metric.
+	 * 
+	 * @param metric the metric to compare the comunes by.
+	 * @return ComuneDose object with the biggest value of the metric.
+	 */
+	public ComuneDose getComuneWithMore(DoseMetric metric) {
+
+		Query query = new Query(Criteria.where(metric.getField()).exists(true));
+		query.limit(1);
+		query.with(Sort.by(metric.getField()).descending());
+
+		return first(scatter(collection -> mongoTemplate.findOne(query, ComuneDose.class, collection)),
+				metric.ascending().reversed());
+	}
+
+	/**
+	 * Retrieves the comune with the smallest value of the given metric.
+	 * 
+	 * @param metric the metric to compare the comunes by.
+	 * @return ComuneDose object with the smallest value of the metric.
+	 */
+	public ComuneDose getComuneWithLess(DoseMetric metric) {
+
+		Query query = new Query(Criteria.where(metric.getField()).exists(true));
+		query.limit(1);
+		query.with(Sort.by(metric.getField()).ascending());
+
+		return first(scatter(collection -> mongoTemplate.findOne(query, ComuneDose.class, collection)),
+				metric.ascending());
+	}
+
+	/**
+	 * Retrieves the comune of a specific province with the biggest value of the
+	 * given metric.
+	 * 
+	 * @param metric   the metric to compare the comunes by.
+	 * @param province the province for which to retrieve the {@link ComuneDose}
+	 *                 objects.
+	 * @return ComuneDose object with the biggest value of the metric.
+	 */
+	public ComuneDose getComuneWithMoreFromProvince(DoseMetric metric, String province) {
+
+		Query query = new Query(inProvince(province).and(metric.getField()).exists(true));
+		query.limit(1);
+		query.with(Sort.by(metric.getField()).descending());
+
+		return mongoTemplate.findOne(query, ComuneDose.class, partitioner.collectionFor(province));
+	}
+
+	/**
+	 * Retrieves the comune of a specific province with the smallest value of the
+	 * given metric.
+	 * 
+	 * @param metric   the metric to compare the comunes by.
+	 * @param province the province for which to retrieve the {@link ComuneDose}
+	 *                 objects.
+	 * @return ComuneDose object with the smallest value of the metric.
+	 */
+	public ComuneDose getComuneWithLessFromProvince(DoseMetric metric, String province) {
+
+		Query query = new Query(inProvince(province).and(metric.getField()).exists(true));
 		query.limit(1);
-		query.with(Sort.by("dose2").descending());
+		query.with(Sort.by(metric.getField()).ascending());
+
+		return mongoTemplate.findOne(query, ComuneDose.class, partitioner.collectionFor(province));
+	}
+
+	/**
+	 * Matches the comunes of a province, whatever the case of its initials.
+	 */
+	private static Criteria inProvince(String province) {
+		return Criteria.where("sigla").is(RegionPartitioner.normalize(province));
+	}
+
+	/**
+	 * Sums a field over the documents of a collection matching the given
+	 * criteria.
+	 * 
+	 * @return the sum, or null if no document matched.
+	 */
+	private Long sum(String collection, Criteria criteria, String field) {
+
+		Aggregation aggregation = criteria == null
+				? Aggregation.newAggregation(Aggregation.group().sum(field).as("total"))
+				: Aggregation.newAggregation(Aggregation.match(criteria), Aggregation.group().sum(field).as("total"));
+
+		AggregationResults<BasicDBObject> results = mongoTemplate.aggregate(aggregation, collection,
+				BasicDBObject.class);
+		BasicDBObject output = results.getUniqueMappedResult();
+
+		return output == null ? null : output.getLong("total");
+	}
+
+	/**
+	 * Runs the given query on every region collection in parallel and gathers the
+	 * partial results.
+	 */
+	private <T> List<T> scatter(Function<String, T> perCollection) {
+
+		List<Future<T>> futures = partitioner.existingCollections().stream()
+				.map(collection -> partitionQueryExecutor.submit(() -> perCollection.apply(collection)))
+				.collect(Collectors.toList());
+
+		List<T> partials = new ArrayList<>(futures.size());
+		for (Future<T> future : futures) {
+			try {
+				partials.add(future.get());
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				throw new IllegalStateException("Interrupted while querying the region collections.", e);
+			} catch (ExecutionException e) {
+				if (e.getCause() instanceof RuntimeException) {
+					throw (RuntimeException) e.getCause();
+				}
+				throw new IllegalStateException(e.getCause());
+			}
+		}
+
+		return partials;
+	}
+
+	/**
+	 * Merges the partial sums of the regions.
+	 * 
+	 * @throws BadRequestException if no region returned a result.
+	 */
+	static long sumPartials(List<Long> partials) {
+
+		List<Long> totals = partials.stream().filter(Objects::nonNull).collect(Collectors.toList());
+		if (totals.isEmpty()) {
+			throw new BadRequestException("Bad Request");
+		}
+
+		return totals.stream().mapToLong(Long::longValue).sum();
+	}
+
+	/**
+	 * Merges the per-region lists, each already sorted with the given order, into
+	 * a single sorted list.
+	 */
+	static List<ComuneDose> mergeSorted(List<List<ComuneDose>> partials, Comparator<ComuneDose> order) {
+
+		Comparator<int[]> byHead = Comparator.comparing((int[] cursor) -> partials.get(cursor[0]).get(cursor[1]),
+				order);
+		PriorityQueue<int[]> heads = new PriorityQueue<>(Math.max(1, partials.size()), byHead);
+		int size = 0;
+		for (int i = 0; i < partials.size(); i++) {
+			size += partials.get(i).size();
+			if (!partials.get(i).isEmpty()) {
+				heads.add(new int[] { i, 0 });
+			}
+		}
+
+		List<ComuneDose> merged = new ArrayList<>(size);
+		while (!heads.isEmpty()) {
+			int[] cursor = heads.poll();
+			List<ComuneDose> partial = partials.get(cursor[0]);
+			merged.add(partial.get(cursor[1]));
+			if (++cursor[1] < partial.size()) {
+				heads.add(cursor);
+			}
+		}
+
+		return merged;
+	}
+
+	/**
+	 * Picks the first comune, in the given order, among the per-region results.
+	 * 
+	 * @return the first comune, or null if every region is empty.
+	 */
+	static ComuneDose first(List<ComuneDose> partials, Comparator<ComuneDose> order) {
 
-		return mongoTemplate.findOne(query, ComuneDose.class);
+		return partials.stream().filter(Objects::nonNull).min(order).orElse(null);
 	}
 
 }
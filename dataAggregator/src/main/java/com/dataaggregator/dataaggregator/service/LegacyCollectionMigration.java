@@ -0,0 +1,84 @@
+package com.dataaggregator.dataaggregator.service;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.ApplicationArguments;
+import org.springframework.boot.ApplicationRunner;
+import org.springframework.dao.DuplicateKeyException;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.data.util.CloseableIterator;
+import org.springframework.stereotype.Component;
+
+import com.dataaggregator.dataaggregator.entity.ComuneDose;
+import com.dataaggregator.dataaggregator.exception.BadRequestException;
+
+/**
+ * This class moves, at startup, the comunes stored in the single "comuneDose"
+ * collection used before the storage was partitioned by region into the
+ * collection of their region (see {@link RegionPartitioner}).
+ *
+ * Each comune is removed from the legacy collection once it is stored in its
+ * region collection, so an interrupted migration resumes on the next startup.
+ * The legacy collection is dropped when it is empty; comunes with an unknown
+ * province are left in it.
+ */
+@Component
+public class LegacyCollectionMigration implements ApplicationRunner {
+
+	public static final String LEGACY_COLLECTION = "comuneDose";
+
+	@Autowired
+	private MongoTemplate mongoTemplate;
+
+	@Autowired
+	private RegionPartitioner partitioner;
+
+	@Override
+	public void run(ApplicationArguments args) {
+
+		if (!mongoTemplate.collectionExists(LEGACY_COLLECTION)) {
+			return;
+		}
+
+		int migrated = 0;
+		try (CloseableIterator<ComuneDose> comunes = mongoTemplate.stream(new Query(), ComuneDose.class,
+				LEGACY_COLLECTION)) {
+			while (comunes.hasNext()) {
+				if (migrate(comunes.next())) {
+					migrated++;
+				}
+			}
+		}
+
+		System.out.println("Migrated " + migrated + " comunes from the " + LEGACY_COLLECTION + " collection.");
+		if (mongoTemplate.count(new Query(), LEGACY_COLLECTION) == 0) {
+			mongoTemplate.dropCollection(LEGACY_COLLECTION);
+		}
+	}
+
+	private boolean migrate(ComuneDose comune) {
+
+		String collection;
+		try {
+			collection = partitioner.collectionFor(comune.getSigla());
+		} catch (BadRequestException e) {
+			System.out.println("Comune " + comune.getCodice() + " left in the " + LEGACY_COLLECTION
+					+ " collection: " + e.getMessage());
+			return false;
+		}
+
+		partitioner.ensureIndexes(collection);
+		comune.setSigla(RegionPartitioner.normalize(comune.getSigla()));
+		comune.computeDerivedMetrics();
+		try {
+			mongoTemplate.insert(comune, collection);
+		} catch (DuplicateKeyException e) {
+			// Already ingested in its region collection, the legacy copy is obsolete
+		}
+		mongoTemplate.remove(new Query(Criteria.where("_id").is(comune.getCodice())), LEGACY_COLLECTION);
+
+		return true;
+	}
+
+}
@@ -0,0 +1,94 @@
+package com.dataaggregator.dataaggregator.service;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.function.Supplier;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import com.dataaggregator.dataaggregator.exception.ServiceUnavailableException;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+
+/**
+ * This class coalesces concurrent identical queries (single-flight): the first
+ * caller of a key runs the query, while the callers arriving with the same key
+ * before it completes wait for its result instead of running the query again.
+ *
+ * The number of executed, coalesced and timed out calls is published on the
+ * "dataaggregator.query.calls" metric, tagged by outcome.
+ */
+@Component
+public class QueryCoalescer {
+
+	private final ConcurrentMap<String, CompletableFuture<Object>> inFlight = new ConcurrentHashMap<>();
+
+	private final long waitTimeoutMs;
+
+	private final Counter executed;
+
+	private final Counter coalesced;
+
+	private final Counter timedOut;
+
+	public QueryCoalescer(@Value("${coalescing.wait-timeout-ms}") long waitTimeoutMs, MeterRegistry registry) {
+		this.waitTimeoutMs = waitTimeoutMs;
+		this.executed = registry.counter("dataaggregator.query.calls", "outcome", "executed");
+		this.coalesced = registry.counter("dataaggregator.query.calls", "outcome", "coalesced");
+		this.timedOut = registry.counter("dataaggregator.query.calls", "outcome", "timeout");
+	}
+
+	/**
+	 * Runs the query, or waits for the result of the identical query already in
+	 * flight.
+	 *
+	 * @param key   a key identifying the query and its arguments.
+	 * @param query the query to run.
+	 * @return the result of the query.
+	 *
+	 * @throws ServiceUnavailableException if the query in flight does not complete
+	 *                                     within the wait timeout.
+	 */
+	@SuppressWarnings("unchecked")
+	public <T> T execute(String key, Supplier<T> query) {
+
+		CompletableFuture<Object> call = new CompletableFuture<>();
+		CompletableFuture<Object> running = inFlight.putIfAbsent(key, call);
+		if (running == null) {
+			executed.increment();
+			try {
+				T result = query.get();
+				call.complete(result);
+				return result;
+			} catch (RuntimeException | Error e) {
+				call.completeExceptionally(e);
+				throw e;
+			} finally {
+				inFlight.remove(key, call);
+			}
+		}
+
+		coalesced.increment();
+		try {
+			return (T) running.get(waitTimeoutMs, TimeUnit.MILLISECONDS);
+		} catch (TimeoutException e) {
+			timedOut.increment();
+			throw new ServiceUnavailableException("Timed out waiting for query " + key + ".");
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new ServiceUnavailableException("Interrupted waiting for query " + key + ".");
+		} catch (ExecutionException e) {
+			if (e.getCause() instanceof RuntimeException) {
+				throw (RuntimeException) e.getCause();
+			}
+			throw new IllegalStateException(e.getCause());
+		}
+	}
+
+}
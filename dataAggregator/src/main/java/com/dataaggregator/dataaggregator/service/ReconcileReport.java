@@ -0,0 +1,185 @@
+package com.dataaggregator.dataaggregator.service;
+
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+import lombok.Getter;
+
+/**
+ * A class representing the progress and the outcome of a reconcile job over
+ * the region collections.
+ *
+ * The counters are updated concurrently by the chunk tasks of the job, and the
+ * report can be read while the job is still running.
+ */
+public class ReconcileReport {
+
+	private static final int MAX_ISSUES = 1000;
+
+	public enum Status {
+		RUNNING, COMPLETED, FAILED
+	}
+
+	@Getter
+	private final boolean repair;
+
+	@Getter
+	private final Instant startedAt = Instant.now();
+
+	@Getter
+	private volatile Instant finishedAt;
+
+	@Getter
+	private volatile Status status = Status.RUNNING;
+
+	@Getter
+	private volatile String failure;
+
+	@Getter
+	private final Map<String, RegionTotals> regions = new ConcurrentHashMap<>();
+
+	private final LongAdder scanned = new LongAdder();
+
+	private final LongAdder partial = new LongAdder();
+
+	private final LongAdder inconsistent = new LongAdder();
+
+	private final LongAdder repaired = new LongAdder();
+
+	private final List<String> issues = new ArrayList<>();
+
+	private final Set<String> moved = ConcurrentHashMap.newKeySet();
+
+	public ReconcileReport(boolean repair) {
+		this.repair = repair;
+	}
+
+	public long getScannedDocuments() {
+		return scanned.sum();
+	}
+
+	public long getPartialDocuments() {
+		return partial.sum();
+	}
+
+	public long getInconsistentDocuments() {
+		return inconsistent.sum();
+	}
+
+	public long getRepairedDocuments() {
+		return repaired.sum();
+	}
+
+	/**
+	 * @return the first issues found by the job, at most 1000 of them.
+	 */
+	public List<String> getIssues() {
+		synchronized (issues) {
+			return new ArrayList<>(issues);
+		}
+	}
+
+	RegionTotals totalsOf(String collection) {
+		return regions.computeIfAbsent(collection, key -> new RegionTotals());
+	}
+
+	void scanned() {
+		scanned.increment();
+	}
+
+	void partial(String collection, Object codice, String reason) {
+		partial.increment();
+		issue(collection, codice, reason);
+	}
+
+	void inconsistent(String collection, Object codice, String reason) {
+		inconsistent.increment();
+		issue(collection, codice, reason);
+	}
+
+	void markMoved(String collection, Object codice) {
+		moved.add(collection + "/" + codice);
+	}
+
+	void unmarkMoved(String collection, Object codice) {
+		moved.remove(collection + "/" + codice);
+	}
+
+	boolean wasMoved(String collection, Object codice) {
+		return moved.contains(collection + "/" + codice);
+	}
+
+	void repaired() {
+		repaired.increment();
+	}
+
+	void completed() {
+		finishedAt = Instant.now();
+		status = Status.COMPLETED;
+	}
+
+	void failed(Throwable cause) {
+		failure = String.valueOf(cause);
+		finishedAt = Instant.now();
+		status = Status.FAILED;
+	}
+
+	private void issue(String collection, Object codice, String reason) {
+		synchronized (issues) {
+			if (issues.size() < MAX_ISSUES) {
+				issues.add(collection + "/" + codice + ": " + reason);
+			}
+		}
+	}
+
+	/**
+	 * The aggregates of a region collection, recomputed by the job from the
+	 * documents it scanned.
+	 */
+	public static class RegionTotals {
+
+		private final LongAdder comunes = new LongAdder();
+
+		private final LongAdder dose1 = new LongAdder();
+
+		private final LongAdder dose2 = new LongAdder();
+
+		private final LongAdder booster = new LongAdder();
+
+		private final LongAdder richiamo = new LongAdder();
+
+		public long getComunes() {
+			return comunes.sum();
+		}
+
+		public long getDose1() {
+			return dose1.sum();
+		}
+
+		public long getDose2() {
+			return dose2.sum();
+		}
+
+		public long getBooster() {
+			return booster.sum();
+		}
+
+		public long getRichiamo() {
+			return richiamo.sum();
+		}
+
+		void add(int dose1, int dose2, int booster, int richiamo) {
+			this.comunes.increment();
+			this.dose1.add(dose1);
+			this.dose2.add(dose2);
+			this.booster.add(booster);
+			this.richiamo.add(richiamo);
+		}
+	}
+
+}
@@ -0,0 +1,402 @@
+package com.dataaggregator.dataaggregator.service;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Objects;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import org.bson.Document;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.dao.DuplicateKeyException;
+import org.springframework.data.domain.Sort;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.data.mongodb.core.query.Update;
+import org.springframework.data.util.CloseableIterator;
+import org.springframework.stereotype.Service;
+
+import com.dataaggregator.dataaggregator.entity.ComuneDose;
+import com.dataaggregator.dataaggregator.exception.BadRequestException;
+
+/**
+ * This class represents a service for checking, and optionally repairing, the
+ * documents of the region collections without replaying the Kafka topic.
+ *
+ * The job runs on a ForkJoinPool capped to reconcile.parallelism threads, in
+ * two phases:
+ * <ol>
+ * <li>each collection is split into _id ranges of about the same size, from a
+ * scan of its _id index, the collections being split in parallel;</li>
+ * <li>the ranges of all the collections are scanned in parallel.</li>
+ * </ol>
+ * The document scan is throttled to reconcile.max-documents-per-second, and the
+ * _id index scan to its own, much higher reconcile.max-index-keys-per-second
+ * (0 disables a throttle), so that the job can run alongside the production
+ * queries. The index scan reads every _id once, but it is covered by the index
+ * and returns only the keys, so it costs far less per entry than the document
+ * scan; in exchange the ranges are exact, where sampling would be cheaper but
+ * would give uneven ranges, and $bucketAuto would sort the whole collection.
+ *
+ * For every document the job:
+ * <ul>
+ * <li>recomputes the totals of its region, crediting a comune stored in the
+ * collection of another region to its own region;</li>
+ * <li>reports it as partial if a required field is missing;</li>
+ * <li>reports it as inconsistent, listing every problem it has, if a dose is
+ * negative, if its sigla is not in upper case, if its derived metrics are stale
+ * or if it is stored in the collection of another region. All but the negative
+ * doses are repaired when the job runs in repair mode.</li>
+ * </ul>
+ */
+@Service
+public class ReconcileService {
+
+	private static final String[] DOSE_FIELDS = { "dose1", "dose2", "booster", "richiamo" };
+
+	@Autowired
+	private MongoTemplate mongoTemplate;
+
+	@Autowired
+	private RegionPartitioner partitioner;
+
+	@Value("${reconcile.parallelism}")
+	private int parallelism;
+
+	@Value("${reconcile.chunks-per-collection}")
+	private int chunksPerCollection;
+
+	@Value("${reconcile.max-documents-per-second}")
+	private int maxDocumentsPerSecond;
+
+	@Value("${reconcile.max-index-keys-per-second}")
+	private int maxIndexKeysPerSecond;
+
+	private final AtomicBoolean running = new AtomicBoolean();
+
+	private volatile ReconcileReport lastReport;
+
+	/**
+	 * Starts a reconcile job in the background.
+	 *
+	 * @param repair true to repair the documents that can be repaired, false to
+	 *               only report them.
+	 * @return the report of the started job, updated while the job runs.
+	 *
+	 * @throws BadRequestException if a reconcile job is already running.
+	 */
+	public ReconcileReport start(boolean repair) {
+
+		if (!running.compareAndSet(false, true)) {
+			throw new BadRequestException("A reconcile job is already running.");
+		}
+
+		ReconcileReport report = new ReconcileReport(repair);
+		lastReport = report;
+		Thread job = new Thread(() -> run(report), "comuneDose-reconcile");
+		job.setDaemon(true);
+		job.start();
+
+		return report;
+	}
+
+	/**
+	 * Retrieves the report of the running job, or of the last completed one.
+	 *
+	 * @return the report of the last started job.
+	 *
+	 * @throws BadRequestException if no reconcile job has been started.
+	 */
+	public ReconcileReport getLastReport() {
+
+		ReconcileReport report = lastReport;
+		if (report == null) {
+			throw new BadRequestException("No reconcile job has been started.");
+		}
+
+		return report;
+	}
+
+	private void run(ReconcileReport report) {
+
+		ForkJoinPool pool = null;
+		try {
+			pool = new ForkJoinPool(parallelism);
+			Throttle indexThrottle = new Throttle(maxIndexKeysPerSecond);
+			Throttle throttle = new Throttle(maxDocumentsPerSecond);
+
+			List<String> collections = partitioner.existingCollections();
+			List<Callable<List<Query>>> chunking = new ArrayList<>();
+			for (String collection : collections) {
+				chunking.add(() -> chunks(collection, indexThrottle));
+			}
+			List<Future<List<Query>>> ranges = pool.invokeAll(chunking);
+
+			List<Callable<Void>> tasks = new ArrayList<>();
+			for (int i = 0; i < collections.size(); i++) {
+				String collection = collections.get(i);
+				for (Query range : ranges.get(i).get()) {
+					tasks.add(() -> {
+						scan(collection, range, report, throttle);
+						return null;
+					});
+				}
+			}
+
+			for (Future<Void> task : pool.invokeAll(tasks)) {
+				task.get();
+			}
+			report.completed();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			report.failed(e);
+		} catch (ExecutionException e) {
+			report.failed(e.getCause());
+		} catch (RuntimeException e) {
+			report.failed(e);
+		} finally {
+			if (pool != null) {
+				pool.shutdownNow();
+			}
+			running.set(false);
+		}
+	}
+
+	/**
+	 * Splits a collection into _id ranges holding about the same number of
+	 * documents. The boundaries are picked from a scan of the _id index only
+	 * (covered query), paced by the given index throttle. The
+	 * first range is unbounded below and the last one unbounded above, so the
+	 * comunes inserted while the job runs are not left out.
+	 */
+	private List<Query> chunks(String collection, Throttle throttle) throws InterruptedException {
+
+		long step = Math.max(1, mongoTemplate.estimatedCount(collection) / chunksPerCollection);
+		Query ids = new Query().with(Sort.by("_id"));
+		ids.fields().include("_id");
+
+		List<Object> boundaries = new ArrayList<>();
+		long position = 0;
+		try (CloseableIterator<Document> documents = mongoTemplate.stream(ids, Document.class, collection)) {
+			while (documents.hasNext()) {
+				throttle.acquire();
+				Object id = documents.next().get("_id");
+				if (position > 0 && position % step == 0) {
+					boundaries.add(id);
+				}
+				position++;
+			}
+		}
+
+		List<Query> ranges = new ArrayList<>(boundaries.size() + 1);
+		Object lower = null;
+		for (Object upper : boundaries) {
+			ranges.add(range(lower, upper));
+			lower = upper;
+		}
+		ranges.add(range(lower, null));
+
+		return ranges;
+	}
+
+	static Query range(Object lower, Object upper) {
+
+		if (lower == null && upper == null) {
+			return new Query();
+		}
+
+		Criteria id = Criteria.where("_id");
+		if (lower != null) {
+			id.gte(lower);
+		}
+		if (upper != null) {
+			id.lt(upper);
+		}
+
+		return new Query(id);
+	}
+
+	private void scan(String collection, Query range, ReconcileReport report, Throttle throttle)
+			throws InterruptedException {
+
+		try (CloseableIterator<Document> documents = mongoTemplate.stream(range, Document.class, collection)) {
+			while (documents.hasNext()) {
+				throttle.acquire();
+				check(collection, documents.next(), report);
+				report.scanned();
+			}
+		}
+	}
+
+	void check(String collection, Document document, ReconcileReport report) {
+
+		Object codice = document.get("_id");
+		if (report.wasMoved(collection, codice)) {
+			// Moved here by this job, already counted in the totals of this region
+			return;
+		}
+
+		for (String field : new String[] { "comune", "provincia", "sigla" }) {
+			if (!(document.get(field) instanceof String)) {
+				report.partial(collection, codice, "missing " + field);
+				return;
+			}
+		}
+		for (String field : DOSE_FIELDS) {
+			if (!(document.get(field) instanceof Number)) {
+				report.partial(collection, codice, "missing " + field);
+				return;
+			}
+		}
+
+		ComuneDose comune = mongoTemplate.getConverter().read(ComuneDose.class, document);
+
+		if (comune.getDose1() < 0 || comune.getDose2() < 0 || comune.getBooster() < 0 || comune.getRichiamo() < 0) {
+			report.inconsistent(collection, codice, "negative dose");
+		}
+
+		String sigla = comune.getSigla();
+		boolean canonical = sigla.equals(RegionPartitioner.normalize(sigla));
+		if (!canonical) {
+			report.inconsistent(collection, codice, "province not in upper case");
+			comune.setSigla(RegionPartitioner.normalize(sigla));
+		}
+
+		int totalDoses = comune.getTotalDoses();
+		Double dose2Coverage = comune.getDose2Coverage();
+		Double boosterCoverage = comune.getBoosterCoverage();
+		comune.computeDerivedMetrics();
+		boolean stale = totalDoses != comune.getTotalDoses()
+				|| !Objects.equals(dose2Coverage, comune.getDose2Coverage())
+				|| !Objects.equals(boosterCoverage, comune.getBoosterCoverage());
+		if (stale) {
+			report.inconsistent(collection, codice, "stale derived metrics");
+		}
+
+		String expectedCollection;
+		try {
+			expectedCollection = partitioner.collectionFor(sigla);
+		} catch (BadRequestException e) {
+			report.inconsistent(collection, codice, "unknown province " + sigla);
+			return;
+		}
+
+		if (!expectedCollection.equals(collection)) {
+			report.inconsistent(collection, codice, "belongs to " + expectedCollection);
+			// The moved copy is written with the normalized sigla and recomputed metrics
+			boolean counted = report.isRepair() ? move(collection, expectedCollection, comune, report)
+					: !duplicated(collection, expectedCollection, codice, report);
+			if (counted) {
+				report.totalsOf(expectedCollection).add(comune.getDose1(), comune.getDose2(), comune.getBooster(),
+						comune.getRichiamo());
+			}
+			return;
+		}
+
+		report.totalsOf(collection).add(comune.getDose1(), comune.getDose2(), comune.getBooster(),
+				comune.getRichiamo());
+
+		if (report.isRepair() && (stale || !canonical)) {
+			Update update = new Update().set("sigla", comune.getSigla()).set("totalDoses", comune.getTotalDoses());
+			setOrUnset(update, "dose2Coverage", comune.getDose2Coverage());
+			setOrUnset(update, "boosterCoverage", comune.getBoosterCoverage());
+			mongoTemplate.updateFirst(new Query(Criteria.where("_id").is(codice)), update, collection);
+			report.repaired();
+		}
+	}
+
+	private static void setOrUnset(Update update, String field, Object value) {
+		if (value == null) {
+			update.unset(field);
+		} else {
+			update.set(field, value);
+		}
+	}
+
+	/**
+	 * Moves a comune stored in the wrong region collection to its own. The comune
+	 * is left in place if its own collection already holds a comune with the same
+	 * ID, including one ingested while it is being moved.
+	 *
+	 * @return true if the comune is now in its own collection, and must be counted
+	 *         in its totals, false if it is a duplicate.
+	 */
+	private boolean move(String from, String to, ComuneDose comune, ReconcileReport report) {
+
+		String codice = comune.getCodice();
+		if (duplicated(from, to, codice, report)) {
+			return false;
+		}
+
+		partitioner.ensureIndexes(to);
+		comune.computeDerivedMetrics();
+		report.markMoved(to, codice);
+		try {
+			mongoTemplate.insert(comune, to);
+		} catch (DuplicateKeyException e) {
+			report.unmarkMoved(to, codice);
+			report.inconsistent(from, codice, "duplicate of the comune in " + to);
+			return false;
+		}
+
+		try {
+			mongoTemplate.remove(new Query(Criteria.where("_id").is(codice)), from);
+		} catch (RuntimeException e) {
+			report.inconsistent(from, codice, "copied to " + to + " but not removed: " + e.getMessage());
+			return true;
+		}
+		report.repaired();
+
+		return true;
+	}
+
+	private boolean duplicated(String from, String to, Object codice, ReconcileReport report) {
+
+		if (mongoTemplate.exists(new Query(Criteria.where("_id").is(codice)), to)) {
+			report.inconsistent(from, codice, "duplicate of the comune in " + to);
+			return true;
+		}
+
+		return false;
+	}
+
+	/**
+	 * A rate limiter shared by the chunk tasks of a job, spacing the documents
+	 * evenly to stay under the configured rate.
+	 */
+	static class Throttle {
+
+		private final long intervalNanos;
+
+		private long next = System.nanoTime();
+
+		Throttle(int maxPerSecond) {
+			this.intervalNanos = maxPerSecond <= 0 ? 0 : TimeUnit.SECONDS.toNanos(1) / maxPerSecond;
+		}
+
+		void acquire() throws InterruptedException {
+
+			if (intervalNanos == 0) {
+				return;
+			}
+
+			long wait;
+			synchronized (this) {
+				long now = System.nanoTime();
+				long slot = Math.max(next, now);
+				next = slot + intervalNanos;
+				wait = slot - now;
+			}
+			if (wait > 0) {
+				TimeUnit.NANOSECONDS.sleep(wait);
+			}
+		}
+	}
+
+}
@@ -0,0 +1,185 @@
+package com.dataaggregator.dataaggregator.service;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.stream.Collectors;
+
+import javax.annotation.PostConstruct;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.data.domain.Sort;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.index.Index;
+import org.springframework.data.mongodb.core.index.IndexInfo;
+import org.springframework.data.mongodb.core.index.IndexOperations;
+import org.springframework.data.mongodb.core.index.PartialIndexFilter;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.stereotype.Component;
+
+import com.dataaggregator.dataaggregator.entity.DoseMetric;
+import com.dataaggregator.dataaggregator.exception.BadRequestException;
+
+/**
+ * This class routes the ComuneDose records to the MongoDB collection of the
+ * region they belong to.
+ *
+ * Every Italian region has its own collection, named "comuneDose_" followed by
+ * the region name, and the region is resolved from the province initials
+ * (sigla) of the record, in any case. The sigla is stored and matched in upper
+ * case (see {@link #normalize(String)}). Each collection is indexed on every
+ * {@link DoseMetric}, both alone and after the sigla, the first time a record
+ * is written to it. The indexes of the optional metrics only hold the comunes
+ * where the metric is defined, matching the $exists filter of their queries.
+ */
+@Component
+public class RegionPartitioner {
+
+	public static final String COLLECTION_PREFIX = "comuneDose_";
+
+	private static final Map<String, String> REGION_BY_SIGLA = new HashMap<>();
+
+	static {
+		register("piemonte", "TO", "VC", "NO", "CN", "AT", "AL", "BI", "VB");
+		register("valle_daosta", "AO");
+		register("lombardia", "VA", "CO", "SO", "MI", "BG", "BS", "PV", "CR", "MN", "LC", "LO", "MB");
+		register("trentino_alto_adige", "BZ", "TN");
+		register("veneto", "VR", "VI", "BL", "TV", "VE", "PD", "RO");
+		register("friuli_venezia_giulia", "UD", "GO", "TS", "PN");
+		register("liguria", "IM", "SV", "GE", "SP");
+		register("emilia_romagna", "PC", "PR", "RE", "MO", "BO", "FE", "RA", "FC", "RN");
+		register("toscana", "MS", "LU", "PT", "FI", "LI", "PI", "AR", "SI", "GR", "PO");
+		register("umbria", "PG", "TR");
+		register("marche", "PU", "AN", "MC", "AP", "FM");
+		register("lazio", "VT", "RI", "RM", "LT", "FR");
+		register("abruzzo", "AQ", "TE", "PE", "CH");
+		register("molise", "CB", "IS");
+		register("campania", "CE", "BN", "NA", "AV", "SA");
+		register("puglia", "FG", "BA", "TA", "BR", "LE", "BT");
+		register("basilicata", "PZ", "MT");
+		register("calabria", "CS", "CZ", "RC", "KR", "VV");
+		register("sicilia", "TP", "PA", "ME", "AG", "CL", "EN", "CT", "RG", "SR");
+		register("sardegna", "SS", "NU", "CA", "OR", "SU", "OT", "OG", "VS", "CI");
+	}
+
+	@Autowired
+	private MongoTemplate mongoTemplate;
+
+	private final Set<String> indexedCollections = ConcurrentHashMap.newKeySet();
+
+	private final Set<String> knownCollections = ConcurrentHashMap.newKeySet();
+
+	private static void register(String region, String... siglas) {
+		for (String sigla : siglas) {
+			REGION_BY_SIGLA.put(sigla, region);
+		}
+	}
+
+	/**
+	 * @return the region of every known province, by province initials.
+	 */
+	static Map<String, String> regionsBySigla() {
+		return Collections.unmodifiableMap(REGION_BY_SIGLA);
+	}
+
+	/**
+	 * Normalizes province initials to the upper-case form they are stored and
+	 * matched with.
+	 *
+	 * @param sigla the province initials, in any case.
+	 * @return the upper-case province initials, or null if sigla is null.
+	 */
+	public static String normalize(String sigla) {
+		return sigla == null ? null : sigla.toUpperCase(Locale.ROOT);
+	}
+
+	/**
+	 * Resolves the collection holding the comunes of the given province.
+	 *
+	 * @param sigla the province initials, in any case.
+	 * @return the name of the collection of the region the province belongs to.
+	 *
+	 * @throws BadRequestException if the province initials are not known.
+	 */
+	public String collectionFor(String sigla) {
+
+		String region = sigla == null ? null : REGION_BY_SIGLA.get(normalize(sigla));
+		if (region == null) {
+			throw new BadRequestException("Unknown province " + sigla + ".");
+		}
+
+		return COLLECTION_PREFIX + region;
+	}
+
+	/**
+	 * Creates the metric indexes of the given collection, unless they have already
+	 * been created by this instance. Creating an index that already exists is a
+	 * no-op in MongoDB, so this is safe across restarts. It must be called before
+	 * writing to a region collection, which it adds to the known collections.
+	 *
+	 * @param collection the name of the region collection.
+	 */
+	public void ensureIndexes(String collection) {
+
+		if (indexedCollections.contains(collection)) {
+			return;
+		}
+
+		knownCollections.add(collection);
+
+		IndexOperations indexOps = mongoTemplate.indexOps(collection);
+		Set<String> existing = indexOps.getIndexInfo().stream().map(IndexInfo::getName).collect(Collectors.toSet());
+		for (DoseMetric metric : DoseMetric.values()) {
+			String field = metric.getField();
+			Index single = new Index().on(field, Sort.Direction.DESC);
+			Index bySigla = new Index().on("sigla", Sort.Direction.ASC).on(field, Sort.Direction.DESC);
+			if (metric.isOptional()) {
+				// Replace the plain indexes created by previous versions
+				for (String plain : new String[] { field + "_-1", "sigla_1_" + field + "_-1" }) {
+					if (existing.contains(plain)) {
+						indexOps.dropIndex(plain);
+					}
+				}
+				PartialIndexFilter defined = PartialIndexFilter.of(Criteria.where(field).exists(true));
+				single.named(field + "_defined").partial(defined);
+				bySigla.named("sigla_1_" + field + "_defined").partial(defined);
+			}
+			indexOps.ensureIndex(single);
+			indexOps.ensureIndex(bySigla);
+		}
+		indexedCollections.add(collection);
+	}
+
+	/**
+	 * Loads the region collections already in the database when the application
+	 * starts.
+	 */
+	@PostConstruct
+	void loadCollections() {
+
+		mongoTemplate.getCollectionNames().stream().filter(name -> name.startsWith(COLLECTION_PREFIX))
+				.forEach(knownCollections::add);
+	}
+
+	/**
+	 * Retrieves the known region collections, so that national queries skip the
+	 * regions that have not been ingested yet without listing the collections of
+	 * the database on every query.
+	 *
+	 * The region collections are only created by this application, which never
+	 * drops them: a collection dropped by hand is still listed until the next
+	 * restart, and is simply queried as an empty region.
+	 *
+	 * @return the names of the region collections loaded at startup or written to
+	 *         since.
+	 */
+	public List<String> existingCollections() {
+
+		return knownCollections.stream().sorted().collect(Collectors.toList());
+	}
+
+}
@@ -0,0 +1,66 @@
+package com.dataaggregator.dataaggregator.entity;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import org.junit.jupiter.api.Test;
+
+class ComuneDoseTests {
+
+	@Test
+	void computesTotalAndCoverages() {
+
+		ComuneDose comune = comune(200, 150, 60, 10);
+
+		comune.computeDerivedMetrics();
+
+		assertThat(comune.getTotalDoses()).isEqualTo(420);
+		assertThat(comune.getDose2Coverage()).isEqualTo(0.75);
+		assertThat(comune.getBoosterCoverage()).isEqualTo(0.4);
+	}
+
+	@Test
+	void leavesDose2CoverageUndefinedWithoutFirstDoses() {
+
+		ComuneDose comune = comune(0, 0, 0, 5);
+
+		comune.computeDerivedMetrics();
+
+		assertThat(comune.getTotalDoses()).isEqualTo(5);
+		assertThat(comune.getDose2Coverage()).isNull();
+		assertThat(comune.getBoosterCoverage()).isNull();
+	}
+
+	@Test
+	void leavesBoosterCoverageUndefinedWithoutSecondDoses() {
+
+		ComuneDose comune = comune(40, 0, 0, 0);
+
+		comune.computeDerivedMetrics();
+
+		assertThat(comune.getDose2Coverage()).isEqualTo(0.0);
+		assertThat(comune.getBoosterCoverage()).isNull();
+	}
+
+	@Test
+	void recomputesStaleMetrics() {
+
+		ComuneDose comune = comune(10, 5, 0, 0);
+		comune.setTotalDoses(99);
+		comune.setBoosterCoverage(1.0);
+
+		comune.computeDerivedMetrics();
+
+		assertThat(comune.getTotalDoses()).isEqualTo(15);
+		assertThat(comune.getBoosterCoverage()).isEqualTo(0.0);
+	}
+
+	private static ComuneDose comune(int dose1, int dose2, int booster, int richiamo) {
+		ComuneDose comune = new ComuneDose();
+		comune.setDose1(dose1);
+		comune.setDose2(dose2);
+		comune.setBooster(booster);
+		comune.setRichiamo(richiamo);
+		return comune;
+	}
+
+}
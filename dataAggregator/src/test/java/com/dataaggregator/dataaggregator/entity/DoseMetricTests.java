@@ -0,0 +1,48 @@
+package com.dataaggregator.dataaggregator.entity;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+import org.junit.jupiter.api.Test;
+
+import com.dataaggregator.dataaggregator.exception.BadRequestException;
+
+class DoseMetricTests {
+
+	@Test
+	void resolvesEveryMetricFromItsField() {
+
+		for (DoseMetric metric : DoseMetric.values()) {
+			assertThat(DoseMetric.fromField(metric.getField())).isSameAs(metric);
+		}
+	}
+
+	@Test
+	void rejectsUnknownField() {
+
+		assertThatThrownBy(() -> DoseMetric.fromField("coverage")).isInstanceOf(BadRequestException.class);
+		assertThatThrownBy(() -> DoseMetric.fromField("DOSE2_COVERAGE")).isInstanceOf(BadRequestException.class);
+		assertThatThrownBy(() -> DoseMetric.fromField(null)).isInstanceOf(BadRequestException.class);
+	}
+
+	@Test
+	void onlyCoveragesAreOptional() {
+
+		assertThat(DoseMetric.DOSE2_COVERAGE.isOptional()).isTrue();
+		assertThat(DoseMetric.BOOSTER_COVERAGE.isOptional()).isTrue();
+		assertThat(DoseMetric.DOSE1.isOptional()).isFalse();
+		assertThat(DoseMetric.TOTAL_DOSES.isOptional()).isFalse();
+	}
+
+	@Test
+	void ordersComunesByMetric() {
+
+		ComuneDose low = new ComuneDose();
+		low.setDose1(10);
+		ComuneDose high = new ComuneDose();
+		high.setDose1(20);
+
+		assertThat(DoseMetric.DOSE1.ascending().compare(low, high)).isNegative();
+	}
+
+}
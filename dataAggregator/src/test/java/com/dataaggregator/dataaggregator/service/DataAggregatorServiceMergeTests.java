@@ -0,0 +1,75 @@
+package com.dataaggregator.dataaggregator.service;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.stream.Collectors;
+
+import org.junit.jupiter.api.Test;
+
+import com.dataaggregator.dataaggregator.entity.ComuneDose;
+import com.dataaggregator.dataaggregator.exception.BadRequestException;
+
+class DataAggregatorServiceMergeTests {
+
+	private static final Comparator<ComuneDose> BY_DOSE2_DESCENDING = Comparator
+			.comparingInt(ComuneDose::getDose2).reversed();
+
+	@Test
+	void mergesSortedPartitionsSkippingEmptyOnes() {
+
+		List<List<ComuneDose>> partials = Arrays.asList(Collections.emptyList(),
+				Arrays.asList(comune("A", 90), comune("B", 40), comune("C", 10)), Collections.emptyList(),
+				Arrays.asList(comune("D", 70), comune("E", 40)), Arrays.asList(comune("F", 5)));
+
+		List<ComuneDose> merged = DataAggregatorService.mergeSorted(partials, BY_DOSE2_DESCENDING);
+
+		assertThat(merged.stream().map(ComuneDose::getDose2).collect(Collectors.toList()))
+				.containsExactly(90, 70, 40, 40, 10, 5);
+	}
+
+	@Test
+	void mergesNoPartitionsToEmptyList() {
+
+		assertThat(DataAggregatorService.mergeSorted(Collections.emptyList(), BY_DOSE2_DESCENDING)).isEmpty();
+		assertThat(DataAggregatorService.mergeSorted(Arrays.asList(Collections.emptyList(), Collections.emptyList()),
+				BY_DOSE2_DESCENDING)).isEmpty();
+	}
+
+	@Test
+	void sumsPartialsSkippingEmptyRegions() {
+
+		assertThat(DataAggregatorService.sumPartials(Arrays.asList(10L, null, 32L, null))).isEqualTo(42L);
+	}
+
+	@Test
+	void rejectsSumWhenEveryRegionIsEmpty() {
+
+		assertThatThrownBy(() -> DataAggregatorService.sumPartials(Arrays.asList(null, null)))
+				.isInstanceOf(BadRequestException.class);
+		assertThatThrownBy(() -> DataAggregatorService.sumPartials(Collections.emptyList()))
+				.isInstanceOf(BadRequestException.class);
+	}
+
+	@Test
+	void picksFirstComuneSkippingEmptyRegions() {
+
+		ComuneDose best = comune("B", 80);
+		List<ComuneDose> partials = Arrays.asList(null, comune("A", 30), best, null);
+
+		assertThat(DataAggregatorService.first(partials, BY_DOSE2_DESCENDING)).isSameAs(best);
+		assertThat(DataAggregatorService.first(Arrays.asList(null, null), BY_DOSE2_DESCENDING)).isNull();
+	}
+
+	private static ComuneDose comune(String codice, int dose2) {
+		ComuneDose comune = new ComuneDose();
+		comune.setCodice(codice);
+		comune.setDose2(dose2);
+		return comune;
+	}
+
+}
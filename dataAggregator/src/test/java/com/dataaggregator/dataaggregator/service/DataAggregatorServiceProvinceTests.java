@@ -0,0 +1,88 @@
+package com.dataaggregator.dataaggregator.service;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.util.Collections;
+import java.util.List;
+
+import org.bson.Document;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.ArgumentCaptor;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.aggregation.Aggregation;
+import org.springframework.data.mongodb.core.aggregation.AggregationResults;
+import org.springframework.data.mongodb.core.index.IndexOperations;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import com.dataaggregator.dataaggregator.entity.ComuneDose;
+import com.dataaggregator.dataaggregator.entity.DoseMetric;
+import com.mongodb.BasicDBObject;
+
+class DataAggregatorServiceProvinceTests {
+
+	private final MongoTemplate mongoTemplate = mock(MongoTemplate.class);
+
+	private final RegionPartitioner partitioner = new RegionPartitioner();
+
+	private final DataAggregatorService service = new DataAggregatorService();
+
+	@BeforeEach
+	void setUp() {
+		ReflectionTestUtils.setField(partitioner, "mongoTemplate", mongoTemplate);
+		ReflectionTestUtils.setField(service, "mongoTemplate", mongoTemplate);
+		ReflectionTestUtils.setField(service, "partitioner", partitioner);
+	}
+
+	@Test
+	void storesLowerCaseProvinceInUpperCase() {
+
+		when(mongoTemplate.indexOps(anyString())).thenReturn(mock(IndexOperations.class));
+		ComuneDose comune = new ComuneDose();
+		comune.setCodice("015146");
+		comune.setSigla("mi");
+
+		service.addComuneDose(comune);
+
+		ArgumentCaptor<ComuneDose> inserted = ArgumentCaptor.forClass(ComuneDose.class);
+		verify(mongoTemplate).insert(inserted.capture(), eq("comuneDose_lombardia"));
+		assertThat(inserted.getValue().getSigla()).isEqualTo("MI");
+	}
+
+	@Test
+	void queriesLowerCaseProvinceInUpperCase() {
+
+		when(mongoTemplate.findOne(any(Query.class), eq(ComuneDose.class), eq("comuneDose_lombardia")))
+				.thenReturn(new ComuneDose());
+
+		assertThat(service.getComuneWithMoreFromProvince(DoseMetric.DOSE1, "mi")).isNotNull();
+
+		ArgumentCaptor<Query> query = ArgumentCaptor.forClass(Query.class);
+		verify(mongoTemplate).findOne(query.capture(), eq(ComuneDose.class), eq("comuneDose_lombardia"));
+		assertThat(query.getValue().getQueryObject().get("sigla")).isEqualTo("MI");
+	}
+
+	@Test
+	void sumsLowerCaseProvinceInUpperCase() {
+
+		AggregationResults<BasicDBObject> results = new AggregationResults<>(
+				Collections.singletonList(new BasicDBObject("total", 42L)), new Document());
+		when(mongoTemplate.aggregate(any(Aggregation.class), eq("comuneDose_lombardia"), eq(BasicDBObject.class)))
+				.thenReturn(results);
+
+		assertThat(service.getTotalNumberOfOneDoseFromProvince("mi")).isEqualTo(42L);
+
+		ArgumentCaptor<Aggregation> aggregation = ArgumentCaptor.forClass(Aggregation.class);
+		verify(mongoTemplate).aggregate(aggregation.capture(), eq("comuneDose_lombardia"), eq(BasicDBObject.class));
+		List<Document> pipeline = aggregation.getValue().toPipeline(Aggregation.DEFAULT_CONTEXT);
+		assertThat(pipeline.get(0).get("$match", Document.class).get("sigla")).isEqualTo("MI");
+	}
+
+}
@@ -0,0 +1,159 @@
+package com.dataaggregator.dataaggregator.service;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import com.dataaggregator.dataaggregator.exception.BadRequestException;
+import com.dataaggregator.dataaggregator.exception.ServiceUnavailableException;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+
+class QueryCoalescerTests {
+
+	private static final int CALLERS = 8;
+
+	private final SimpleMeterRegistry registry = new SimpleMeterRegistry();
+
+	private final ExecutorService callers = Executors.newFixedThreadPool(CALLERS);
+
+	private final CountDownLatch started = new CountDownLatch(1);
+
+	private final CountDownLatch release = new CountDownLatch(1);
+
+	private final AtomicInteger runs = new AtomicInteger();
+
+	@AfterEach
+	void shutdown() {
+		release.countDown();
+		callers.shutdownNow();
+	}
+
+	@Test
+	void concurrentCallersShareOneExecution() throws Exception {
+
+		QueryCoalescer coalescer = new QueryCoalescer(5000, registry);
+		Object result = new Object();
+
+		List<Future<Object>> calls = startCallers(coalescer, () -> result);
+		awaitCoalesced(CALLERS - 1);
+		release.countDown();
+
+		for (Future<Object> call : calls) {
+			assertThat(call.get(5, TimeUnit.SECONDS)).isSameAs(result);
+		}
+		assertThat(runs).hasValue(1);
+		assertThat(count("executed")).isEqualTo(1);
+		assertThat(count("coalesced")).isEqualTo(CALLERS - 1);
+		assertThat(count("timeout")).isZero();
+	}
+
+	@Test
+	void leaderFailureReachesEveryWaiter() throws Exception {
+
+		QueryCoalescer coalescer = new QueryCoalescer(5000, registry);
+		BadRequestException failure = new BadRequestException("Bad Request");
+
+		List<Future<Object>> calls = startCallers(coalescer, () -> {
+			throw failure;
+		});
+		awaitCoalesced(CALLERS - 1);
+		release.countDown();
+
+		for (Future<Object> call : calls) {
+			assertThatThrownBy(() -> call.get(5, TimeUnit.SECONDS)).isInstanceOf(ExecutionException.class)
+					.hasCauseReference(failure);
+		}
+		assertThat(runs).hasValue(1);
+		assertThat(count("executed")).isEqualTo(1);
+		assertThat(count("coalesced")).isEqualTo(CALLERS - 1);
+	}
+
+	@Test
+	void followerTimesOutWhileLeaderIsRunning() throws Exception {
+
+		QueryCoalescer coalescer = new QueryCoalescer(50, registry);
+
+		Future<Object> leader = callers.submit(() -> coalescer.execute("key", blocking(() -> "result")));
+		assertThat(started.await(5, TimeUnit.SECONDS)).isTrue();
+
+		assertThatThrownBy(() -> coalescer.execute("key", () -> "other"))
+				.isInstanceOf(ServiceUnavailableException.class);
+
+		release.countDown();
+		assertThat(leader.get(5, TimeUnit.SECONDS)).isEqualTo("result");
+		assertThat(count("executed")).isEqualTo(1);
+		assertThat(count("coalesced")).isEqualTo(1);
+		assertThat(count("timeout")).isEqualTo(1);
+	}
+
+	@Test
+	void callAfterCompletionRunsQueryAgain() {
+
+		QueryCoalescer coalescer = new QueryCoalescer(5000, registry);
+
+		assertThat(coalescer.execute("key", () -> runs.incrementAndGet())).isEqualTo(1);
+		assertThat(coalescer.execute("key", () -> runs.incrementAndGet())).isEqualTo(2);
+		assertThat(count("executed")).isEqualTo(2);
+		assertThat(count("coalesced")).isZero();
+	}
+
+	/**
+	 * Starts the leader, waits for it to be running the query, then starts the
+	 * followers with the same key.
+	 */
+	private List<Future<Object>> startCallers(QueryCoalescer coalescer, Supplier<Object> query)
+			throws InterruptedException {
+
+		Supplier<Object> blockingQuery = blocking(query);
+		List<Future<Object>> calls = new ArrayList<>();
+		calls.add(callers.submit(() -> coalescer.execute("key", blockingQuery)));
+		assertThat(started.await(5, TimeUnit.SECONDS)).isTrue();
+		for (int i = 1; i < CALLERS; i++) {
+			calls.add(callers.submit(() -> coalescer.execute("key", blockingQuery)));
+		}
+
+		return calls;
+	}
+
+	private Supplier<Object> blocking(Supplier<Object> query) {
+
+		return () -> {
+			runs.incrementAndGet();
+			started.countDown();
+			try {
+				release.await();
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+			return query.get();
+		};
+	}
+
+	private void awaitCoalesced(long expected) throws InterruptedException {
+
+		long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+		while (count("coalesced") < expected && System.nanoTime() < deadline) {
+			Thread.sleep(5);
+		}
+		assertThat(count("coalesced")).isEqualTo(expected);
+	}
+
+	private long count(String outcome) {
+		return (long) registry.counter("dataaggregator.query.calls", "outcome", outcome).count();
+	}
+
+}
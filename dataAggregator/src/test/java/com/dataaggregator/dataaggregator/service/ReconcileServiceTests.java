@@ -0,0 +1,221 @@
+package com.dataaggregator.dataaggregator.service;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.util.concurrent.TimeUnit;
+
+import org.bson.Document;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.ArgumentCaptor;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.convert.MappingMongoConverter;
+import org.springframework.data.mongodb.core.convert.NoOpDbRefResolver;
+import org.springframework.data.mongodb.core.index.IndexOperations;
+import org.springframework.data.mongodb.core.mapping.MongoMappingContext;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.data.mongodb.core.query.Update;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import com.dataaggregator.dataaggregator.entity.ComuneDose;
+
+class ReconcileServiceTests {
+
+	private static final String LOMBARDIA = "comuneDose_lombardia";
+
+	private static final String LAZIO = "comuneDose_lazio";
+
+	private final MongoTemplate mongoTemplate = mock(MongoTemplate.class);
+
+	private final ReconcileService service = new ReconcileService();
+
+	@BeforeEach
+	void setUp() {
+		MappingMongoConverter converter = new MappingMongoConverter(NoOpDbRefResolver.INSTANCE,
+				new MongoMappingContext());
+		converter.afterPropertiesSet();
+		when(mongoTemplate.getConverter()).thenReturn(converter);
+		when(mongoTemplate.indexOps(anyString())).thenReturn(mock(IndexOperations.class));
+
+		RegionPartitioner partitioner = new RegionPartitioner();
+		ReflectionTestUtils.setField(partitioner, "mongoTemplate", mongoTemplate);
+		ReflectionTestUtils.setField(service, "mongoTemplate", mongoTemplate);
+		ReflectionTestUtils.setField(service, "partitioner", partitioner);
+	}
+
+	@Test
+	void rangesAreHalfOpenAndOpenEndedAtBothEnds() {
+
+		assertThat(ReconcileService.range(null, null).getQueryObject()).isEmpty();
+		assertThat(ReconcileService.range(null, "B").getQueryObject().get("_id"))
+				.isEqualTo(new Document("$lt", "B"));
+		assertThat(ReconcileService.range("A", "B").getQueryObject().get("_id"))
+				.isEqualTo(new Document("$gte", "A").append("$lt", "B"));
+		assertThat(ReconcileService.range("B", null).getQueryObject().get("_id"))
+				.isEqualTo(new Document("$gte", "B"));
+	}
+
+	@Test
+	void creditsMisplacedComuneToItsOwnRegionInReportMode() {
+
+		ReconcileReport report = new ReconcileReport(false);
+
+		service.check(LAZIO, fresh("015146", "MI", 100, 80, 40, 5), report);
+
+		assertThat(report.getRegions()).containsOnlyKeys(LOMBARDIA);
+		assertThat(report.getRegions().get(LOMBARDIA).getComunes()).isEqualTo(1);
+		assertThat(report.getRegions().get(LOMBARDIA).getDose1()).isEqualTo(100);
+		assertThat(report.getIssues()).containsExactly(LAZIO + "/015146: belongs to " + LOMBARDIA);
+		verify(mongoTemplate, never()).insert(any(ComuneDose.class), anyString());
+	}
+
+	@Test
+	void doesNotCreditMisplacedComuneDuplicatedInItsOwnRegion() {
+
+		when(mongoTemplate.exists(any(Query.class), eq(LOMBARDIA))).thenReturn(true);
+		ReconcileReport report = new ReconcileReport(true);
+
+		service.check(LAZIO, fresh("015146", "MI", 100, 80, 40, 5), report);
+
+		assertThat(report.getRegions()).isEmpty();
+		assertThat(report.getIssues()).containsExactly(LAZIO + "/015146: belongs to " + LOMBARDIA,
+				LAZIO + "/015146: duplicate of the comune in " + LOMBARDIA);
+		verify(mongoTemplate, never()).insert(any(ComuneDose.class), anyString());
+	}
+
+	@Test
+	void skipsMovedComuneWhenItsTargetRangeIsScanned() {
+
+		ReconcileReport report = new ReconcileReport(true);
+		Document misplaced = fresh("015146", "MI", 100, 80, 40, 5);
+
+		service.check(LAZIO, misplaced, report);
+		service.check(LOMBARDIA, misplaced, report);
+
+		verify(mongoTemplate).insert(any(ComuneDose.class), eq(LOMBARDIA));
+		verify(mongoTemplate).remove(any(Query.class), eq(LAZIO));
+		assertThat(report.getRegions()).containsOnlyKeys(LOMBARDIA);
+		assertThat(report.getRegions().get(LOMBARDIA).getComunes()).isEqualTo(1);
+		assertThat(report.getRepairedDocuments()).isEqualTo(1);
+	}
+
+	@Test
+	void reportsEveryProblemOfMisplacedComune() {
+
+		ReconcileReport report = new ReconcileReport(false);
+		Document comune = document("015146", "MI", -1, 80, 40, 5);
+
+		service.check(LAZIO, comune, report);
+
+		assertThat(report.getInconsistentDocuments()).isEqualTo(3);
+		assertThat(report.getIssues()).containsExactly(LAZIO + "/015146: negative dose",
+				LAZIO + "/015146: stale derived metrics", LAZIO + "/015146: belongs to " + LOMBARDIA);
+	}
+
+	@Test
+	void unsetsCoveragesThatBecameUndefined() {
+
+		ReconcileReport report = new ReconcileReport(true);
+		Document comune = document("015146", "MI", 0, 0, 0, 3).append("totalDoses", 7).append("dose2Coverage", 0.0)
+				.append("boosterCoverage", 0.0);
+
+		service.check(LOMBARDIA, comune, report);
+
+		Document update = repairUpdate();
+		assertThat(update.get("$set", Document.class)).containsEntry("totalDoses", 3)
+				.doesNotContainKeys("dose2Coverage", "boosterCoverage");
+		assertThat(update.get("$unset", Document.class)).containsOnlyKeys("dose2Coverage", "boosterCoverage");
+		assertThat(report.getRepairedDocuments()).isEqualTo(1);
+	}
+
+	@Test
+	void setsMissingCoverages() {
+
+		ReconcileReport report = new ReconcileReport(true);
+		Document comune = document("015146", "mi", 10, 5, 0, 0);
+
+		service.check(LOMBARDIA, comune, report);
+
+		Document update = repairUpdate();
+		assertThat(update.get("$set", Document.class)).containsEntry("sigla", "MI").containsEntry("totalDoses", 15)
+				.containsEntry("dose2Coverage", 0.5).containsEntry("boosterCoverage", 0.0);
+		assertThat(update).doesNotContainKey("$unset");
+	}
+
+	@Test
+	void leavesFreshComuneInItsRegionUntouched() {
+
+		ReconcileReport report = new ReconcileReport(true);
+
+		service.check(LOMBARDIA, fresh("015146", "MI", 100, 80, 40, 5), report);
+
+		assertThat(report.getIssues()).isEmpty();
+		assertThat(report.getRegions().get(LOMBARDIA).getComunes()).isEqualTo(1);
+		verify(mongoTemplate, never()).updateFirst(any(Query.class), any(Update.class), anyString());
+	}
+
+	@Test
+	void throttleSpacesAcquisitions() throws InterruptedException {
+
+		ReconcileService.Throttle throttle = new ReconcileService.Throttle(100);
+
+		long start = System.nanoTime();
+		for (int i = 0; i < 11; i++) {
+			throttle.acquire();
+		}
+
+		assertThat(System.nanoTime() - start).isGreaterThanOrEqualTo(TimeUnit.MILLISECONDS.toNanos(90));
+	}
+
+	@Test
+	void disabledThrottleDoesNotWait() throws InterruptedException {
+
+		ReconcileService.Throttle throttle = new ReconcileService.Throttle(0);
+
+		long start = System.nanoTime();
+		for (int i = 0; i < 10_000; i++) {
+			throttle.acquire();
+		}
+
+		assertThat(System.nanoTime() - start).isLessThan(TimeUnit.SECONDS.toNanos(1));
+	}
+
+	private Document repairUpdate() {
+
+		ArgumentCaptor<Update> update = ArgumentCaptor.forClass(Update.class);
+		verify(mongoTemplate).updateFirst(any(Query.class), update.capture(), eq(LOMBARDIA));
+
+		return update.getValue().getUpdateObject();
+	}
+
+	private static Document document(String codice, String sigla, int dose1, int dose2, int booster, int richiamo) {
+		return new Document("_id", codice).append("comune", "Comune").append("provincia", "Provincia")
+				.append("sigla", sigla).append("dose1", dose1).append("dose2", dose2).append("booster", booster)
+				.append("richiamo", richiamo);
+	}
+
+	/**
+	 * Builds a document whose derived metrics are up to date.
+	 */
+	private static Document fresh(String codice, String sigla, int dose1, int dose2, int booster, int richiamo) {
+
+		ComuneDose comune = new ComuneDose();
+		comune.setDose1(dose1);
+		comune.setDose2(dose2);
+		comune.setBooster(booster);
+		comune.setRichiamo(richiamo);
+		comune.computeDerivedMetrics();
+
+		return document(codice, sigla, dose1, dose2, booster, richiamo).append("totalDoses", comune.getTotalDoses())
+				.append("dose2Coverage", comune.getDose2Coverage())
+				.append("boosterCoverage", comune.getBoosterCoverage());
+	}
+
+}
@@ -0,0 +1,44 @@
+package com.dataaggregator.dataaggregator.service;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+import java.util.HashSet;
+import java.util.Map;
+
+import org.junit.jupiter.api.Test;
+
+import com.dataaggregator.dataaggregator.exception.BadRequestException;
+
+class RegionPartitionerTests {
+
+	private final RegionPartitioner partitioner = new RegionPartitioner();
+
+	@Test
+	void resolvesEveryProvinceToItsRegionCollection() {
+
+		Map<String, String> regions = RegionPartitioner.regionsBySigla();
+
+		assertThat(new HashSet<>(regions.values())).hasSize(20);
+		regions.forEach((sigla, region) -> {
+			assertThat(partitioner.collectionFor(sigla)).isEqualTo(RegionPartitioner.COLLECTION_PREFIX + region);
+			assertThat(partitioner.collectionFor(sigla.toLowerCase()))
+					.isEqualTo(RegionPartitioner.COLLECTION_PREFIX + region);
+		});
+	}
+
+	@Test
+	void resolvesLowerCaseProvince() {
+
+		assertThat(partitioner.collectionFor("mi")).isEqualTo("comuneDose_lombardia");
+		assertThat(partitioner.collectionFor("Rm")).isEqualTo("comuneDose_lazio");
+	}
+
+	@Test
+	void rejectsUnknownProvince() {
+
+		assertThatThrownBy(() -> partitioner.collectionFor("XX")).isInstanceOf(BadRequestException.class);
+		assertThatThrownBy(() -> partitioner.collectionFor(null)).isInstanceOf(BadRequestException.class);
+	}
+
+}